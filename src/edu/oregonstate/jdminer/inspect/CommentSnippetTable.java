@@ -0,0 +1,116 @@
+package edu.oregonstate.jdminer.inspect;
+
+import com.google.common.hash.Hashing;
+import org.oregonstate.droidperm.perm.miner.jaxb_out.PermissionDef;
+
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Content-addressed table of javadoc snippets used as permission def comments. Overloads, inner classes and URI fields
+ * often share the same javadoc, so defs store a reference to the snippet instead of the snippet itself.
+ */
+@XmlRootElement(name = "CommentSnippets")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class CommentSnippetTable {
+
+    private static final String REFERENCE_PREFIX = "snippet:";
+
+    @XmlElement(name = "snippet")
+    private List<Snippet> snippets = new ArrayList<>();
+
+    @XmlTransient
+    private final SortedMap<String, String> hashToTextMap = new TreeMap<>();
+
+    /**
+     * Snippets already built, keyed by the source they were built from.
+     */
+    @XmlTransient
+    private final Map<String, String> sourceKeyToHashMap = new HashMap<>();
+
+    /**
+     * @param sourceKey identifies the file ranges the snippet is built from.
+     * @return hash of the snippet. Snippet text is only built the first time a source key is seen.
+     */
+    public String add(String sourceKey, Supplier<String> textSupplier) {
+        String hash = sourceKeyToHashMap.get(sourceKey);
+        if (hash == null) {
+            hash = add(textSupplier.get());
+            sourceKeyToHashMap.put(sourceKey, hash);
+        }
+        return hash;
+    }
+
+    private String add(String text) {
+        String hash = Hashing.sha1().hashString(text, StandardCharsets.UTF_8).toString().substring(0, 16);
+        String existing = hashToTextMap.putIfAbsent(hash, text);
+        if (existing != null && !existing.equals(text)) {
+            throw new IllegalStateException("Snippet hash collision: " + hash);
+        }
+        return hash;
+    }
+
+    public String get(String hash) {
+        return hashToTextMap.get(hash);
+    }
+
+    public void putAll(CommentSnippetTable other) {
+        other.hashToTextMap.values().forEach(this::add);
+    }
+
+    /**
+     * @return table with just the snippets referenced by the given defs.
+     */
+    public CommentSnippetTable retainReferenced(Collection<PermissionDef> permDefs) {
+        CommentSnippetTable result = new CommentSnippetTable();
+        permDefs.stream().map(permDef -> getHash(permDef.getComment())).filter(Objects::nonNull)
+                .forEach(hash -> result.hashToTextMap.put(hash, hashToTextMap.get(hash)));
+        return result;
+    }
+
+    public static String toReference(String hash) {
+        return REFERENCE_PREFIX + hash;
+    }
+
+    /**
+     * @return snippet hash if comment is a snippet reference, null otherwise.
+     */
+    public static String getHash(String comment) {
+        return comment != null && comment.startsWith(REFERENCE_PREFIX)
+               ? comment.substring(REFERENCE_PREFIX.length()) : null;
+    }
+
+    @SuppressWarnings("unused")
+    private void beforeMarshal(Marshaller marshaller) {
+        snippets = new ArrayList<>();
+        hashToTextMap.forEach((hash, text) -> snippets.add(new Snippet(hash, text)));
+    }
+
+    @SuppressWarnings("unused")
+    private void afterUnmarshal(Unmarshaller unmarshaller, Object parent) {
+        snippets.forEach(snippet -> hashToTextMap.put(snippet.hash, snippet.text));
+    }
+
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static class Snippet {
+
+        @XmlAttribute
+        private String hash;
+
+        @XmlValue
+        private String text;
+
+        @SuppressWarnings("unused")
+        private Snippet() {
+        }
+
+        private Snippet(String hash, String text) {
+            this.hash = hash;
+            this.text = text;
+        }
+    }
+}
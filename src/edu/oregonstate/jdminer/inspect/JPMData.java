@@ -67,6 +67,15 @@ public class JPMData {
             "android.support.v4.app.Fragment"
     );
 
+    /**
+     * Packages whose methods calling a sensitive method are considered wrappers of it, and receive its permissions
+     * during propagation.
+     */
+    @SuppressWarnings("ArraysAsListWithZeroOrOneArgument")
+    public static final List<String> delegatingWrapperPackages = Arrays.asList(
+            "android.support."
+    );
+
     /**
      * Map from class names to CustomPermDef objects defining their permissions.
      */
@@ -1,16 +1,40 @@
 package edu.oregonstate.jdminer.inspect;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * @author Denis Bogdanas <bogdanad@oregonstate.edu> Created on 11/29/2016.
  */
 public class JPMUtil {
 
+    private static final String PROPAGATED_COMMENT_HEADER = "Propagated from:";
+
     /**
      * @return true if str starts with any prefix in prefixes, false otherwise.
      */
     public static boolean startsWithAny(String str, Collection<String> prefixes) {
         return prefixes.stream().anyMatch(str::startsWith);
     }
+
+    /**
+     * @return comment for a propagated permission def, listing the signatures of members it was propagated from.
+     */
+    public static String buildPropagatedComment(Collection<String> originSignatures) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n").append(PROPAGATED_COMMENT_HEADER).append("\n");
+        originSignatures.stream().sorted().distinct().forEach(signature -> sb.append(signature).append("\n"));
+        return sb.toString();
+    }
+
+    /**
+     * Inverse of {@link #buildPropagatedComment(Collection)}.
+     */
+    public static List<String> parsePropagatedComment(String comment) {
+        return Arrays.stream(comment.split("\n"))
+                .filter(line -> !line.isEmpty() && !line.equals(PROPAGATED_COMMENT_HEADER))
+                .collect(Collectors.toList());
+    }
 }
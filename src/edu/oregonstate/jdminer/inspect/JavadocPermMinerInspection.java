@@ -20,7 +20,6 @@ import com.intellij.psi.search.UsageSearchContext;
 import com.intellij.psi.util.PsiTreeUtil;
 import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
-import org.oregonstate.droidperm.jaxb.JaxbUtil;
 import org.oregonstate.droidperm.perm.miner.XmlPermDefMiner;
 import org.oregonstate.droidperm.perm.miner.jaxb_out.*;
 import org.oregonstate.droidperm.util.MyCollectors;
@@ -39,11 +38,6 @@ import java.util.stream.Stream;
 public class JavadocPermMinerInspection extends GlobalInspectionTool {
 
     private static final Logger LOG = Logger.getInstance(JavadocPermMinerInspection.class);
-    private static final File METADATA_XML = new File("d:/DroidPerm/droid-perm/config/perm-def-API-23.xml");
-    private static final File XML_OUT = new File("d:/DroidPerm/javadoc-perm-miner/temp/javadoc-xml-out.xml");
-    private static final File MANUAL_XML_OUT = new File("d:/DroidPerm/javadoc-perm-miner/temp/manual-xml-out.xml");
-    private static final File PARAMETRIC_SENS_OUT =
-            new File("d:/DroidPerm/javadoc-perm-miner/temp/parametric-sens-out.xml");
 
     @Override
     public boolean isGraphNeeded() {
@@ -55,59 +49,85 @@ public class JavadocPermMinerInspection extends GlobalInspectionTool {
                               @NotNull GlobalInspectionContext globalContext,
                               @NotNull ProblemDescriptionsProcessor problemDescriptionsProcessor) {
         try {
-            List<PermissionDef> metadadaPermDefs =
-                    JaxbUtil.load(PermissionDefList.class, METADATA_XML).getPermissionDefs();
-            List<PermissionDef> excludedPermDefs =
-                    JaxbUtil.load(PermissionDefList.class, getClass().getResource("ExcludedPermDef.xml"))
-                            .getPermissionDefs();
-            Multimap<String, PsiDocCommentOwner> permToCommentOwnersMap =
-                    buildDocCommentOwners(globalContext.getProject());
-            List<PermissionDef> collectedPermDef = buildPermissionDefs(permToCommentOwnersMap);
-            List<PermissionDef> newPermDefs = new ArrayList<>(collectedPermDef);
-            List<PermissionDef> classPermDefsCoveredByCustomDefs = JPMData.getClassPermDefsCoveredByCustomDefs();
-            newPermDefs.removeAll(metadadaPermDefs);
-            newPermDefs.removeAll(excludedPermDefs);
-            newPermDefs.removeAll(classPermDefsCoveredByCustomDefs);
-
-            System.out.println("Total permission defs collected: " + collectedPermDef.size());
-            System.out.println("New permission defs, after removing metadata and excluded defs: " + newPermDefs.size());
-
-            List<PermissionDef> customPermDefs =
-                    buildCustomPermDefs(JPMData.classCustomPerm, globalContext.getProject(), this::buildPermissionDef);
-            customPermDefs.removeAll(newPermDefs); //should not change results
-            newPermDefs.addAll(customPermDefs);
-            System.out.println("Final perm defs, after adding custom permissions: " + newPermDefs.size());
-
-            savePermissionDefs(newPermDefs, XML_OUT);
-
-            List<PermissionDef> manualPermDefs =
-                    buildCustomPermDefs(JPMData.manualPerm, globalContext.getProject(), this::buildPermissionDef);
-            System.out.println("Manual perm defs: " + manualPermDefs.size());
-            savePermissionDefs(manualPermDefs, MANUAL_XML_OUT);
-
-            List<ParametricSensDef> parametricSensDefs =
-                    buildCustomPermDefs(JPMData.parametricPerm, globalContext.getProject(),
-                            this::buildParametricSensDef);
-            System.out.println("Parametric sens defs: " + parametricSensDefs.size());
-            JaxbUtil.save(new PermissionDefList(Collections.emptyList(), Collections.emptyList(), parametricSensDefs),
-                    PermissionDefList.class, PARAMETRIC_SENS_OUT);
+            ShardConfig shardConfig = ShardConfig.fromSystemProperties();
+            MiningContext context = new MiningContext(Boolean.getBoolean("jpm.inlineComments"));
+            MinedPermDefs minedPermDefs = mine(globalContext.getProject(), shardConfig, context);
+            if (shardConfig.isWorker()) {
+                File shardDir = shardConfig.getShardDir(shardConfig.getShardIndex());
+                minedPermDefs.savePartials(shardDir);
+                System.out.println("Partial results saved to " + shardDir);
+            } else {
+                minedPermDefs.saveOutputs();
+            }
         } catch (Exception e) {
             LOG.error(e.getMessage(), e);
         }
     }
 
-    private <T> List<T> buildCustomPermDefs(List<JPMData.CustomPermDef> customPermRawData,
-                                            Project project,
-                                            BiFunction<PsiDocCommentOwner, Collection<String>, T> permDefBuilder) {
+    private MinedPermDefs mine(Project project, ShardConfig shardConfig, MiningContext context)
+            throws JAXBException, IOException {
+        PermPropagator propagator = new PermPropagator(project, this::getMemberSignature);
+        List<PermissionDef> collectedPermDef = mineJavadoc(project, shardConfig, context, propagator);
+        printUsedHeap("after javadoc mining");
+        List<PermissionDef> propagatedPermDefs = buildPropagatedPermDefs(propagator);
+        printUsedHeap("after propagation");
+
+        List<JPMData.CustomPermDef> uriCustomPerm = new ArrayList<>(JPMData.classCustomPerm);
+        uriCustomPerm.addAll(JPMData.manualPerm);
+        BiFunction<PsiDocCommentOwner, Collection<String>, PermissionDef> permDefBuilder =
+                (docCommentOwner, permColl) -> buildPermissionDef(docCommentOwner, permColl, context);
+        return new MinedPermDefs(collectedPermDef, propagatedPermDefs,
+                buildCustomPermDefs(JPMData.classCustomPerm, project, shardConfig, permDefBuilder),
+                buildCustomPermDefs(JPMData.manualPerm, project, shardConfig, permDefBuilder),
+                buildCustomPermDefs(JPMData.parametricPerm, project, shardConfig, this::buildParametricSensDef),
+                buildUriPermIndex(uriCustomPerm, project, shardConfig),
+                context.inlineComments ? null : context.commentSnippets);
+    }
+
+    /**
+     * Mine defs from javadoc of members owned by this shard, and add mined members that are not excluded to propagator
+     * as seeds. Mined PSI is not referenced once this method returns, other than through smart pointers of propagator.
+     */
+    private List<PermissionDef> mineJavadoc(Project project, ShardConfig shardConfig, MiningContext context,
+                                            PermPropagator propagator) throws JAXBException, IOException {
+        Multimap<PsiDocCommentOwner, String> commentOwnerToPermMap =
+                Multimaps.invertFrom(buildDocCommentOwners(project, shardConfig), HashMultimap.create());
+        getPropagationSeeds(commentOwnerToPermMap, MinedPermDefs.loadExcludedPermDefs())
+                .forEach(seed -> propagator.addSeed(seed, commentOwnerToPermMap.get(seed)));
+        return buildPermissionDefs(commentOwnerToPermMap, context);
+    }
+
+    /**
+     * Used heap is printed to compare the footprint of shard workers against a single-process run.
+     */
+    private static void printUsedHeap(String stage) {
+        Runtime runtime = Runtime.getRuntime();
+        long usedMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        System.out.println("Used heap " + stage + ": " + usedMb + " MB");
+    }
+
+    /**
+     * @return defs built from each raw def owned by this shard, keyed by the index of the raw def.
+     */
+    private <T> SortedMap<Integer, List<T>> buildCustomPermDefs(List<JPMData.CustomPermDef> customPermRawData,
+                                                                Project project, ShardConfig shardConfig,
+                                                                BiFunction<PsiDocCommentOwner, Collection<String>, T>
+                                                                        permDefBuilder) {
         JavaPsiFacade psiFacade = JavaPsiFacade.getInstance(project);
         GlobalSearchScope libScope = ProjectScope.getLibrariesScope(project);
 
-        List<T> result = new ArrayList<>();
-        for (JPMData.CustomPermDef customPermDef : customPermRawData) {
+        SortedMap<Integer, List<T>> resultMap = new TreeMap<>();
+        for (int i = 0; i < customPermRawData.size(); i++) {
+            JPMData.CustomPermDef customPermDef = customPermRawData.get(i);
             String className = customPermDef.className;
             if (customPermDef.permList == null) {
                 continue;//class has to be ignored
             }
+            if (!shardConfig.owns(className)) {
+                continue;
+            }
+            List<T> result = new ArrayList<>();
+            resultMap.put(i, result);
             PsiClass psiClass = psiFacade.findClass(className, libScope);
             if (psiClass == null) {
                 LOG.error("Custom class not found: " + className);
@@ -142,39 +162,84 @@ public class JavadocPermMinerInspection extends GlobalInspectionTool {
                         .forEach(result::add);
             }
             if (customPermDef.includeUriFields) {
-                Stream<PsiClass> classes = customPermDef.includeInnerClassesForUri
-                                           ? Stream.concat(
-                        Stream.of(psiClass),
-                        PsiTreeUtil.findChildrenOfType(psiClass, PsiClass.class).stream())
-                                           : Stream.of(psiClass);
-
-                classes.flatMap(currentClass -> Stream.of(currentClass.getFields()))
-                        .filter(psiField -> !isHidden(psiField, getText(psiField)))
-                        .filter(psiField -> psiField.getType().getCanonicalText().equals("android.net.Uri"))
+                getUriFields(customPermDef, psiClass)
                         .map(psiField -> permDefBuilder.apply(psiField, customPermDef.permList))
                         .forEach(result::add);
             }
         }
-        return result;
+        return resultMap;
+    }
+
+    private Stream<PsiField> getUriFields(JPMData.CustomPermDef customPermDef, PsiClass psiClass) {
+        Stream<PsiClass> classes = customPermDef.includeInnerClassesForUri
+                                   ? Stream.concat(
+                Stream.of(psiClass),
+                PsiTreeUtil.findChildrenOfType(psiClass, PsiClass.class).stream())
+                                   : Stream.of(psiClass);
+
+        return classes.flatMap(currentClass -> Stream.of(currentClass.getFields()))
+                .filter(psiField -> !isHidden(psiField, getText(psiField)))
+                .filter(psiField -> UriFieldResolver.isUriType(psiField.getType()));
+    }
+
+    /**
+     * Resolve URI fields collected by custom defs to URI strings and index them by URI prefix, to be used for
+     * parametric permission checks.
+     */
+    private UriPermIndex buildUriPermIndex(List<JPMData.CustomPermDef> customPermRawData, Project project,
+                                           ShardConfig shardConfig) {
+        JavaPsiFacade psiFacade = JavaPsiFacade.getInstance(project);
+        GlobalSearchScope libScope = ProjectScope.getLibrariesScope(project);
+        UriFieldResolver resolver = new UriFieldResolver(project);
+
+        UriPermIndex index = new UriPermIndex();
+        for (JPMData.CustomPermDef customPermDef : customPermRawData) {
+            boolean ignored = customPermDef.permList == null;
+            if (!(ignored || customPermDef.includeUriFields) || !shardConfig.owns(customPermDef.className)) {
+                continue;
+            }
+            PsiClass psiClass = psiFacade.findClass(customPermDef.className, libScope);
+            if (psiClass == null) {
+                continue;//reported when building custom defs
+            }
+            //URIs of ignored classes are indexed too, otherwise they would get permissions of their authority prefix.
+            getUriFields(customPermDef, psiClass).forEach(psiField -> {
+                String uri = resolver.resolve(psiField);
+                List<String> segments = uri != null ? UriPermIndex.splitUri(uri) : Collections.emptyList();
+                if (segments.isEmpty()) {
+                    System.out.println("Unresolved URI field: " + getMemberSignature(psiField) + ", value: " + uri);
+                } else if (!ignored) {
+                    index.put(uri, customPermDef.permList);
+                } else if (segments.size() > 1) {
+                    //an ignored authority root would hide every URI of that provider
+                    index.putIgnored(uri);
+                }
+            });
+        }
+        return index;
     }
 
     private String getText(PsiDocCommentOwner commOwner) {
         return commOwner.getDocComment() != null ? commOwner.getDocComment().getText() : "";
     }
 
-    private Multimap<String, PsiDocCommentOwner> buildDocCommentOwners(Project project) {
+    private Multimap<String, PsiDocCommentOwner> buildDocCommentOwners(Project project, ShardConfig shardConfig) {
         return JPMData.wordMap.keySet().stream().collect(MyCollectors.toMultimapForCollection(
                 ArrayListMultimap::create,
                 perm -> perm,
-                perm -> buildDocCommentOwners(project, perm)
+                perm -> buildDocCommentOwners(project, perm, shardConfig)
         ));
     }
 
-    private List<PsiDocCommentOwner> buildDocCommentOwners(Project project, String perm) {
+    private List<PsiDocCommentOwner> buildDocCommentOwners(Project project, String perm, ShardConfig shardConfig) {
         String permWord = JPMData.wordMap.get(perm);
         GlobalSearchScope libScope = ProjectScope.getLibrariesScope(project);
-        PsiFile[] filesWithPerm = CacheManager.SERVICE.getInstance(project)
-                .getFilesWithWord(permWord, UsageSearchContext.IN_COMMENTS, libScope, true);
+        //Files of other shards are filtered before their javadoc is parsed. Propagation is not restricted to the shard,
+        //see ShardConfig.
+        PsiFile[] filesWithPerm = Arrays.stream(CacheManager.SERVICE.getInstance(project)
+                .getFilesWithWord(permWord, UsageSearchContext.IN_COMMENTS, libScope, true))
+                .filter(file -> isOwned(file, shardConfig))
+                .toArray(PsiFile[]::new);
 
         System.out.println("\nClasses containing " + permWord + " in comments: " + filesWithPerm.length);
         int totalOccurrences = Arrays.stream(filesWithPerm)
@@ -188,6 +253,8 @@ public class JavadocPermMinerInspection extends GlobalInspectionTool {
         //Because we eventually check for classes, occurrences outside Java will be ignored.
         //noinspection unchecked
         Arrays.stream(filesWithPerm).flatMap(file -> PsiTreeUtil.getChildrenOfAnyType(file, PsiClass.class).stream())
+                .filter(psiClass -> psiClass.getQualifiedName() == null
+                        || shardConfig.owns(psiClass.getQualifiedName()))
                 .forEach(psiClass -> {
                     boolean excluded = JPMUtil.startsWithAny(psiClass.getQualifiedName(), JPMData.classExclusionList);
                     String excludedStr = excluded ? ", excluded" : "";
@@ -226,22 +293,36 @@ public class JavadocPermMinerInspection extends GlobalInspectionTool {
         return result;
     }
 
+    private static boolean isOwned(PsiFile file, ShardConfig shardConfig) {
+        if (!(file instanceof PsiClassOwner)) {
+            return !shardConfig.isWorker();
+        }
+        return Arrays.stream(((PsiClassOwner) file).getClasses()).map(PsiClass::getQualifiedName)
+                .anyMatch(className -> className != null && shardConfig.owns(className));
+    }
+
     private boolean isHidden(PsiDocCommentOwner elem, String docText) {
         assert elem.getModifierList() != null;
         return docText.contains("@hide") || docText.contains("@removed")
                 || !elem.getModifierList().hasModifierProperty(PsiModifier.PUBLIC);
     }
 
-    private List<PermissionDef> buildPermissionDefs(Multimap<String, PsiDocCommentOwner> permToCommentOwnersMap) {
-        Multimap<PsiDocCommentOwner, String> commentOwnerToPermMap
-                = Multimaps.invertFrom(permToCommentOwnersMap, HashMultimap.create());
+    private List<PermissionDef> buildPermissionDefs(Multimap<PsiDocCommentOwner, String> commentOwnerToPermMap,
+                                                    MiningContext context) {
         return commentOwnerToPermMap.keySet().stream()
-                .map(elem -> buildPermissionDef(elem, commentOwnerToPermMap.get(elem)))
+                .map(elem -> buildPermissionDef(elem, commentOwnerToPermMap.get(elem), context))
                 .sorted(SortUtil.permissionDefComparator)
                 .collect(Collectors.toList());
     }
 
-    private PermissionDef buildPermissionDef(PsiDocCommentOwner docCommentOwner, Collection<String> permColl) {
+    private PermissionDef buildPermissionDef(PsiDocCommentOwner docCommentOwner, Collection<String> permColl,
+                                             MiningContext context) {
+        PermissionDef permDef = buildPermissionDefNoComment(docCommentOwner, permColl);
+        permDef.setComment(buildComment(docCommentOwner.getDocComment(), permDef.getPermissions(), context));
+        return permDef;
+    }
+
+    private PermissionDef buildPermissionDefNoComment(PsiDocCommentOwner docCommentOwner, Collection<String> permColl) {
         PsiClass classOrSelf =
                 docCommentOwner instanceof PsiClass ? (PsiClass) docCommentOwner : docCommentOwner.getContainingClass();
         assert classOrSelf != null;
@@ -251,11 +332,65 @@ public class JavadocPermMinerInspection extends GlobalInspectionTool {
                 .collect(Collectors.toList());
         PermissionDef permDef = new PermissionDef(className, targetAndKind.first, targetAndKind.second, permissions);
         permDef.setPermissionRel(PermissionRel.AllOf);
-        permDef.setComment(buildComment(docCommentOwner.getDocComment(), permissions));
         permDef.setConditional(true);
         return permDef;
     }
 
+    /**
+     * Propagate permissions of mined members to their overriders, subclasses and support library wrappers.
+     * Permissions of a propagated def are the union of permissions of all the members it was reached from. Its comment
+     * lists those members instead of javadoc text.
+     */
+    private List<PermissionDef> buildPropagatedPermDefs(PermPropagator propagator) {
+        Multimap<String, String> derivedToSeedsMap = propagator.propagate();
+        List<PermissionDef> result = new ArrayList<>();
+        for (String derived : derivedToSeedsMap.keySet()) {
+            PsiDocCommentOwner member = propagator.getMember(derived);
+            if (member == null || !isPropagationTarget(member)) {
+                continue;
+            }
+            Collection<String> origins = derivedToSeedsMap.get(derived);
+            Set<String> perms = origins.stream().flatMap(seed -> propagator.getSeedPermissions(seed).stream())
+                    .collect(Collectors.toSet());
+            PermissionDef permDef = buildPermissionDefNoComment(member, perms);
+            permDef.setComment(JPMUtil.buildPropagatedComment(origins));
+            result.add(permDef);
+        }
+        result.sort(SortUtil.permissionDefComparator);
+        return result;
+    }
+
+    /**
+     * Mined members whose defs are excluded are false positives, their permissions should not be propagated either.
+     */
+    private List<PsiDocCommentOwner> getPropagationSeeds(Multimap<PsiDocCommentOwner, String> commentOwnerToPermMap,
+                                                         List<PermissionDef> excludedPermDefs) {
+        return commentOwnerToPermMap.keySet().stream()
+                .filter(member -> !excludedPermDefs.contains(
+                        buildPermissionDefNoComment(member, commentOwnerToPermMap.get(member))))
+                .collect(Collectors.toList());
+    }
+
+    private boolean isPropagationTarget(PsiDocCommentOwner member) {
+        PsiClass classOrSelf = member instanceof PsiClass ? (PsiClass) member : member.getContainingClass();
+        return classOrSelf != null && classOrSelf.getQualifiedName() != null
+                && !JPMUtil.startsWithAny(classOrSelf.getQualifiedName(), JPMData.classExclusionList)
+                && !isHidden(member, getText(member));
+    }
+
+    /**
+     * @return null for members of anonymous and local classes, they have no qualified name.
+     */
+    private String getMemberSignature(PsiDocCommentOwner member) {
+        PsiClass classOrSelf = member instanceof PsiClass ? (PsiClass) member : member.getContainingClass();
+        if (classOrSelf == null || classOrSelf.getQualifiedName() == null) {
+            return null;
+        }
+        String className = XmlPermDefMiner.processInnerClasses(classOrSelf.getQualifiedName());
+        String target = getTargetAndKind(member).first;
+        return target != null ? className + ": " + target : className;
+    }
+
     private static final Set<String> SENSITIVE_PARAM_TYPES =
             Sets.newHashSet("java.lang.String", "android.net.Uri", "int");
 
@@ -319,7 +454,7 @@ public class JavadocPermMinerInspection extends GlobalInspectionTool {
         return Pair.create(target, targetKind);
     }
 
-    private String buildComment(PsiDocComment docComment, List<Permission> permissions) {
+    private String buildComment(PsiDocComment docComment, List<Permission> permissions, MiningContext context) {
         if (docComment == null) {
             return null;
         }
@@ -332,14 +467,19 @@ public class JavadocPermMinerInspection extends GlobalInspectionTool {
             return null;
         }
 
-        //Concatenate text in the ranges
-        String fileText = docComment.getContainingFile().getText();
-        StringBuilder sb = new StringBuilder();
-        sb.append("\n");
-        for (TextRange range : fileRanges) {
-            sb.append(range.substring(fileText)).append("\n");
-        }
-        return sb.toString();
+        PsiFile file = docComment.getContainingFile();
+        String filePath = file.getVirtualFile() != null ? file.getVirtualFile().getPath() : file.getName();
+        String hash = context.commentSnippets.add(filePath + fileRanges, () -> {
+            //Concatenate text in the ranges
+            String fileText = file.getText();
+            StringBuilder sb = new StringBuilder();
+            sb.append("\n");
+            for (TextRange range : fileRanges) {
+                sb.append(range.substring(fileText)).append("\n");
+            }
+            return sb.toString();
+        });
+        return context.inlineComments ? context.commentSnippets.get(hash) : CommentSnippetTable.toReference(hash);
     }
 
     /**
@@ -413,10 +553,6 @@ public class JavadocPermMinerInspection extends GlobalInspectionTool {
         }).collect(Collectors.toList());
     }
 
-    private void savePermissionDefs(List<PermissionDef> permissionDefs, File file) throws JAXBException, IOException {
-        JaxbUtil.save(new PermissionDefList(permissionDefs), PermissionDefList.class, file);
-    }
-
     private static int occurrencesInType(PsiElement elem, String perm, Class<? extends PsiElement> psiClass) {
         //noinspection unchecked
         return PsiTreeUtil.findChildrenOfAnyType(elem, psiClass).stream()
@@ -457,4 +593,25 @@ public class JavadocPermMinerInspection extends GlobalInspectionTool {
             return text.contains(JPMData.wordMap.get(perm));
         }
     }
+
+    /**
+     * State of a single inspection run.
+     */
+    private static class MiningContext {
+
+        /**
+         * Snippets of javadoc used as comments in this run.
+         */
+        final CommentSnippetTable commentSnippets = new CommentSnippetTable();
+
+        /**
+         * If true, defs contain snippet text as comment, as expected by older DroidPerm versions. Otherwise they
+         * contain a reference into the snippet table. Set by jpm.inlineComments system property.
+         */
+        final boolean inlineComments;
+
+        MiningContext(boolean inlineComments) {
+            this.inlineComments = inlineComments;
+        }
+    }
 }
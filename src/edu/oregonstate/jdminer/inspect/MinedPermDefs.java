@@ -0,0 +1,192 @@
+package edu.oregonstate.jdminer.inspect;
+
+import org.oregonstate.droidperm.jaxb.JaxbUtil;
+import org.oregonstate.droidperm.perm.miner.jaxb_out.ParametricSensDef;
+import org.oregonstate.droidperm.perm.miner.jaxb_out.PermissionDef;
+import org.oregonstate.droidperm.perm.miner.jaxb_out.PermissionDefList;
+
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Raw results of mining, before removing defs already covered by metadata, excluded or custom defs. Produced either by
+ * a single-process run or by merging partial results of shard workers. Both are saved through
+ * {@link #saveOutputs()}, so they produce the same output.
+ */
+public class MinedPermDefs {
+
+    private static final File METADATA_XML = new File("d:/DroidPerm/droid-perm/config/perm-def-API-23.xml");
+    private static final File XML_OUT = new File("d:/DroidPerm/javadoc-perm-miner/temp/javadoc-xml-out.xml");
+    private static final File PROPAGATED_XML_OUT =
+            new File("d:/DroidPerm/javadoc-perm-miner/temp/propagated-xml-out.xml");
+    private static final File MANUAL_XML_OUT = new File("d:/DroidPerm/javadoc-perm-miner/temp/manual-xml-out.xml");
+    private static final File PARAMETRIC_SENS_OUT =
+            new File("d:/DroidPerm/javadoc-perm-miner/temp/parametric-sens-out.xml");
+    private static final File URI_PERM_INDEX_OUT =
+            new File("d:/DroidPerm/javadoc-perm-miner/temp/uri-perm-index.xml");
+    private static final File COMMENT_SNIPPETS_OUT =
+            new File("d:/DroidPerm/javadoc-perm-miner/temp/comment-snippets.xml");
+
+    static final String JAVADOC_PARTIAL = "javadoc.xml";
+    static final String PROPAGATED_PARTIAL = "propagated.xml";
+    static final String CUSTOM_PARTIAL_PREFIX = "custom-";
+    static final String MANUAL_PARTIAL_PREFIX = "manual-";
+    static final String PARAMETRIC_PARTIAL_PREFIX = "parametric-";
+    static final String URI_PERM_INDEX_PARTIAL = "uri-perm-index.xml";
+    static final String COMMENT_SNIPPETS_PARTIAL = "comment-snippets.xml";
+
+    /**
+     * Defs mined from javadoc, sorted.
+     */
+    final List<PermissionDef> collected;
+
+    /**
+     * Defs propagated from collected defs, sorted.
+     */
+    final List<PermissionDef> propagated;
+
+    /**
+     * Defs built from JPMData.classCustomPerm, JPMData.manualPerm and JPMData.parametricPerm, keyed by the index of
+     * their raw def in those lists.
+     */
+    final SortedMap<Integer, List<PermissionDef>> custom;
+    final SortedMap<Integer, List<PermissionDef>> manual;
+    final SortedMap<Integer, List<ParametricSensDef>> parametric;
+
+    final UriPermIndex uriPermIndex;
+
+    /**
+     * Snippets referenced by def comments. Null if comments are inlined, no snippet table is saved then.
+     */
+    final CommentSnippetTable commentSnippets;
+
+    public MinedPermDefs(List<PermissionDef> collected, List<PermissionDef> propagated,
+                         SortedMap<Integer, List<PermissionDef>> custom,
+                         SortedMap<Integer, List<PermissionDef>> manual,
+                         SortedMap<Integer, List<ParametricSensDef>> parametric,
+                         UriPermIndex uriPermIndex, CommentSnippetTable commentSnippets) {
+        this.collected = collected;
+        this.propagated = propagated;
+        this.custom = custom;
+        this.manual = manual;
+        this.parametric = parametric;
+        this.uriPermIndex = uriPermIndex;
+        this.commentSnippets = commentSnippets;
+    }
+
+    public void saveOutputs() throws JAXBException, IOException {
+        List<PermissionDef> removedPermDefs =
+                new ArrayList<>(JaxbUtil.load(PermissionDefList.class, METADATA_XML).getPermissionDefs());
+        removedPermDefs.addAll(loadExcludedPermDefs());
+        removedPermDefs.addAll(JPMData.getClassPermDefsCoveredByCustomDefs());
+
+        List<PermissionDef> newPermDefs = buildNewPermDefs(removedPermDefs);
+        savePermissionDefs(newPermDefs, XML_OUT);
+
+        List<PermissionDef> propagatedPermDefs = buildPropagatedPermDefs(removedPermDefs);
+        savePermissionDefs(propagatedPermDefs, PROPAGATED_XML_OUT);
+
+        List<PermissionDef> manualPermDefs = flatten(manual);
+        System.out.println("Manual perm defs: " + manualPermDefs.size());
+        savePermissionDefs(manualPermDefs, MANUAL_XML_OUT);
+
+        List<ParametricSensDef> parametricSensDefs = flatten(parametric);
+        System.out.println("Parametric sens defs: " + parametricSensDefs.size());
+        saveParametricSensDefs(parametricSensDefs, PARAMETRIC_SENS_OUT);
+
+        JaxbUtil.save(uriPermIndex, UriPermIndex.class, URI_PERM_INDEX_OUT);
+
+        if (commentSnippets != null) {
+            //snippets of defs removed above are not saved
+            List<PermissionDef> savedPermDefs = new ArrayList<>(newPermDefs);
+            savedPermDefs.addAll(propagatedPermDefs);
+            savedPermDefs.addAll(manualPermDefs);
+            JaxbUtil.save(commentSnippets.retainReferenced(savedPermDefs), CommentSnippetTable.class,
+                    COMMENT_SNIPPETS_OUT);
+        }
+    }
+
+    /**
+     * @param removedPermDefs metadata defs, excluded defs and class defs covered by custom defs.
+     * @return defs saved to javadoc output: collected defs not in removedPermDefs, followed by custom defs.
+     */
+    List<PermissionDef> buildNewPermDefs(List<PermissionDef> removedPermDefs) {
+        List<PermissionDef> newPermDefs = new ArrayList<>(collected);
+        newPermDefs.removeAll(removedPermDefs);
+
+        System.out.println("Total permission defs collected: " + collected.size());
+        System.out.println("New permission defs, after removing metadata and excluded defs: " + newPermDefs.size());
+
+        List<PermissionDef> customPermDefs = flatten(custom);
+        customPermDefs.removeAll(newPermDefs); //should not change results
+        newPermDefs.addAll(customPermDefs);
+        System.out.println("Final perm defs, after adding custom permissions: " + newPermDefs.size());
+        return newPermDefs;
+    }
+
+    /**
+     * @return defs saved to propagated output: propagated defs that are neither collected nor in removedPermDefs.
+     */
+    List<PermissionDef> buildPropagatedPermDefs(List<PermissionDef> removedPermDefs) {
+        List<PermissionDef> propagatedPermDefs = new ArrayList<>(propagated);
+        propagatedPermDefs.removeAll(collected);
+        propagatedPermDefs.removeAll(removedPermDefs);
+        System.out.println("Propagated perm defs: " + propagatedPermDefs.size());
+        return propagatedPermDefs;
+    }
+
+    /**
+     * @return defs known to be false positives of javadoc mining.
+     */
+    static List<PermissionDef> loadExcludedPermDefs() throws JAXBException, IOException {
+        return JaxbUtil.load(PermissionDefList.class, MinedPermDefs.class.getResource("ExcludedPermDef.xml"))
+                .getPermissionDefs();
+    }
+
+    /**
+     * Save the results of a shard worker, to be merged by {@link ShardMerger}.
+     */
+    public void savePartials(File dir) throws JAXBException, IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        savePermissionDefs(collected, new File(dir, JAVADOC_PARTIAL));
+        savePermissionDefs(propagated, new File(dir, PROPAGATED_PARTIAL));
+        for (Map.Entry<Integer, List<PermissionDef>> entry : custom.entrySet()) {
+            savePermissionDefs(entry.getValue(), new File(dir, partialName(CUSTOM_PARTIAL_PREFIX, entry.getKey())));
+        }
+        for (Map.Entry<Integer, List<PermissionDef>> entry : manual.entrySet()) {
+            savePermissionDefs(entry.getValue(), new File(dir, partialName(MANUAL_PARTIAL_PREFIX, entry.getKey())));
+        }
+        for (Map.Entry<Integer, List<ParametricSensDef>> entry : parametric.entrySet()) {
+            saveParametricSensDefs(entry.getValue(),
+                    new File(dir, partialName(PARAMETRIC_PARTIAL_PREFIX, entry.getKey())));
+        }
+        JaxbUtil.save(uriPermIndex, UriPermIndex.class, new File(dir, URI_PERM_INDEX_PARTIAL));
+        if (commentSnippets != null) {
+            JaxbUtil.save(commentSnippets, CommentSnippetTable.class, new File(dir, COMMENT_SNIPPETS_PARTIAL));
+        }
+    }
+
+    static String partialName(String prefix, int index) {
+        return String.format("%s%03d.xml", prefix, index);
+    }
+
+    private static <T> List<T> flatten(SortedMap<Integer, List<T>> defsByIndex) {
+        return defsByIndex.values().stream().flatMap(List::stream).collect(Collectors.toList());
+    }
+
+    private static void savePermissionDefs(List<PermissionDef> permissionDefs, File file)
+            throws JAXBException, IOException {
+        JaxbUtil.save(new PermissionDefList(permissionDefs), PermissionDefList.class, file);
+    }
+
+    private static void saveParametricSensDefs(List<ParametricSensDef> parametricSensDefs, File file)
+            throws JAXBException, IOException {
+        JaxbUtil.save(new PermissionDefList(Collections.emptyList(), Collections.emptyList(), parametricSensDefs),
+                PermissionDefList.class, file);
+    }
+}
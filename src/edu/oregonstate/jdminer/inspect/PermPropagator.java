@@ -0,0 +1,153 @@
+package edu.oregonstate.jdminer.inspect;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.psi.*;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.ProjectScope;
+import com.intellij.psi.search.searches.ClassInheritorsSearch;
+import com.intellij.psi.search.searches.MethodReferencesSearch;
+import com.intellij.psi.search.searches.OverridingMethodsSearch;
+import com.intellij.psi.util.PsiTreeUtil;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Computes the closure of mined permission defs over the library class hierarchy. A member is reached from a member
+ * with permissions if it overrides it, if it's a subclass of it, or if it's a support library wrapper that delegates
+ * to it.
+ * <p>
+ * Members are identified by signature, and their PSI is only referenced through smart pointers. Thus PSI of library
+ * files found by the searches can be released as soon as their members are visited, instead of being kept until
+ * propagation ends. Members without a signature, like those of anonymous classes, are not traversed.
+ * <p>
+ * Direct successors of each member are memoised, because the same library members are usually reached from many
+ * seeds. Traversal runs on the calling thread: the inspection already holds a read action, and worker threads
+ * requesting their own read actions could deadlock behind a pending write action.
+ */
+public class PermPropagator {
+
+    private final GlobalSearchScope libScope;
+    private final SmartPointerManager pointerManager;
+
+    /**
+     * Returns the signature of a member, or null if it can't be identified.
+     */
+    private final Function<PsiDocCommentOwner, String> signatureFunction;
+
+    private final Map<String, SmartPsiElementPointer<PsiDocCommentOwner>> members = new HashMap<>();
+    private final Multimap<String, String> seedToPermsMap = HashMultimap.create();
+    private final Map<String, Set<String>> successorsCache = new HashMap<>();
+
+    public PermPropagator(Project project, Function<PsiDocCommentOwner, String> signatureFunction) {
+        libScope = ProjectScope.getLibrariesScope(project);
+        pointerManager = SmartPointerManager.getInstance(project);
+        this.signatureFunction = signatureFunction;
+    }
+
+    /**
+     * Permissions are copied, seed PSI is only referenced through a smart pointer.
+     */
+    public void addSeed(PsiDocCommentOwner seed, Collection<String> perms) {
+        String signature = addMember(seed);
+        if (signature != null) {
+            seedToPermsMap.putAll(signature, perms);
+        }
+    }
+
+    public Collection<String> getSeedPermissions(String seed) {
+        return seedToPermsMap.get(seed);
+    }
+
+    /**
+     * @return member with the given signature, or null if its PSI is no longer valid.
+     */
+    public PsiDocCommentOwner getMember(String signature) {
+        SmartPsiElementPointer<PsiDocCommentOwner> pointer = members.get(signature);
+        return pointer != null ? pointer.getElement() : null;
+    }
+
+    /**
+     * @return map from signatures of members reachable from seeds, seeds themselves excluded, to signatures of the
+     * seeds they were reached from.
+     */
+    public Multimap<String, String> propagate() {
+        Multimap<String, String> result = HashMultimap.create();
+        for (String seed : seedToPermsMap.keySet()) {
+            closure(seed).stream().filter(member -> !seedToPermsMap.containsKey(member))
+                    .forEach(member -> result.put(member, seed));
+        }
+        return result;
+    }
+
+    /**
+     * @return all members transitively reachable from seed, seed excluded.
+     */
+    private Set<String> closure(String seed) {
+        Set<String> visited = new HashSet<>();
+        Deque<String> worklist = new ArrayDeque<>();
+        worklist.add(seed);
+        while (!worklist.isEmpty()) {
+            for (String succ : successors(worklist.poll())) {
+                if (!succ.equals(seed) && visited.add(succ)) {
+                    worklist.add(succ);
+                }
+            }
+        }
+        return visited;
+    }
+
+    private Set<String> successors(String signature) {
+        ProgressManager.checkCanceled();
+        return successorsCache.computeIfAbsent(signature, key ->
+                ApplicationManager.getApplication().runReadAction((Computable<Set<String>>) () ->
+                        computeSuccessors(key)));
+    }
+
+    private Set<String> computeSuccessors(String signature) {
+        PsiDocCommentOwner member = getMember(signature);
+        List<PsiDocCommentOwner> successors = new ArrayList<>();
+        if (member instanceof PsiClass) {
+            successors.addAll(ClassInheritorsSearch.search((PsiClass) member, libScope, true).findAll());
+        } else if (member instanceof PsiMethod) {
+            PsiMethod method = (PsiMethod) member;
+            successors.addAll(OverridingMethodsSearch.search(method, libScope, true).findAll());
+            MethodReferencesSearch.search(method, libScope, true).findAll().stream()
+                    .map(ref -> PsiTreeUtil.getParentOfType(ref.getElement(), PsiMethod.class))
+                    .filter(wrapper -> wrapper != null && wrapper != method && isDelegatingWrapperCandidate(wrapper))
+                    .forEach(successors::add);
+        }
+        //fields are not inherited in a way that matters for permission checks.
+
+        Set<String> result = new HashSet<>();
+        for (PsiDocCommentOwner succ : successors) {
+            String succSignature = addMember(succ);
+            if (succSignature != null) {
+                result.add(succSignature);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return signature of member, or null if it can't be identified.
+     */
+    private String addMember(PsiDocCommentOwner member) {
+        String signature = signatureFunction.apply(member);
+        if (signature != null && !members.containsKey(signature)) {
+            members.put(signature, pointerManager.createSmartPsiElementPointer(member));
+        }
+        return signature;
+    }
+
+    private static boolean isDelegatingWrapperCandidate(PsiMethod method) {
+        PsiClass containingClass = method.getContainingClass();
+        return containingClass != null && containingClass.getQualifiedName() != null
+                && JPMUtil.startsWithAny(containingClass.getQualifiedName(), JPMData.delegatingWrapperPackages);
+    }
+}
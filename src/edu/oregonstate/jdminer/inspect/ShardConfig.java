@@ -0,0 +1,114 @@
+package edu.oregonstate.jdminer.inspect;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Configuration for mining the library scope in several worker processes, each owning a set of package prefixes.
+ * Read from system properties:
+ * <ul>
+ * <li>jpm.shards - package prefixes of each shard. Shards are separated by ';', prefixes of one shard by ','.</li>
+ * <li>jpm.shard.index - shard mined by the current process. Only set for worker processes.</li>
+ * <li>jpm.shard.dir - directory where workers save partial results, one subdirectory per shard.</li>
+ * </ul>
+ * A class belongs to the shard with the longest prefix of its qualified name. Prefixes match whole package or class
+ * names: "android" matches android.app.Activity but not androidx.core.app.ActivityCompat. Classes matching no prefix
+ * belong to shard 0. When jpm.shards is not set, mining runs in a single process that owns every class.
+ * <p>
+ * For javadoc mining, a worker only loads PSI of files it owns. Mined PSI is released before propagation, which only
+ * keeps signatures and smart pointers of members. Propagation still searches the whole library scope, because
+ * overriders and wrappers of a member may belong to other shards, but PSI found by these searches is not held either.
+ * Used heap is printed after both stages, to compare workers against a single-process run.
+ */
+public class ShardConfig {
+
+    private final List<List<String>> shardPrefixes;
+    private final int shardIndex;
+    private final File partialDir;
+
+    ShardConfig(List<List<String>> shardPrefixes, int shardIndex, File partialDir) {
+        this.shardPrefixes = shardPrefixes;
+        this.shardIndex = shardIndex;
+        this.partialDir = partialDir;
+    }
+
+    public static ShardConfig fromSystemProperties() {
+        String shards = System.getProperty("jpm.shards");
+        if (shards == null) {
+            return new ShardConfig(Collections.singletonList(Collections.singletonList("")), -1, null);
+        }
+        List<List<String>> shardPrefixes = Arrays.stream(shards.split(";", -1))
+                .map(shard -> Arrays.stream(shard.split(",")).map(String::trim).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+        String index = System.getProperty("jpm.shard.index");
+        String dir = System.getProperty("jpm.shard.dir");
+        if (dir == null) {
+            throw new IllegalArgumentException("jpm.shard.dir is required when jpm.shards is set");
+        }
+        int shardIndex = index != null ? Integer.parseInt(index) : -1;
+        if (index != null && (shardIndex < 0 || shardIndex >= shardPrefixes.size())) {
+            throw new IllegalArgumentException("Invalid jpm.shard.index: " + shardIndex);
+        }
+        return new ShardConfig(shardPrefixes, shardIndex, new File(dir));
+    }
+
+    public boolean isSharded() {
+        return partialDir != null;
+    }
+
+    /**
+     * @return true if this process mines a single shard and saves partial results.
+     */
+    public boolean isWorker() {
+        return shardIndex != -1;
+    }
+
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    public int getShardCount() {
+        return shardPrefixes.size();
+    }
+
+    public File getShardDir(int shard) {
+        return new File(partialDir, "shard-" + shard);
+    }
+
+    public List<File> getShardDirs() {
+        List<File> result = new ArrayList<>();
+        for (int i = 0; i < getShardCount(); i++) {
+            result.add(getShardDir(i));
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the class with the given qualified name is mined by this process.
+     */
+    public boolean owns(String className) {
+        return !isWorker() || shardOf(className) == shardIndex;
+    }
+
+    public int shardOf(String className) {
+        int result = 0;
+        int longestPrefix = -1;
+        for (int i = 0; i < shardPrefixes.size(); i++) {
+            for (String prefix : shardPrefixes.get(i)) {
+                if (!prefix.isEmpty() && matches(className, prefix) && prefix.length() > longestPrefix) {
+                    result = i;
+                    longestPrefix = prefix.length();
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean matches(String className, String prefix) {
+        return className.equals(prefix) || className.startsWith(prefix + ".");
+    }
+}
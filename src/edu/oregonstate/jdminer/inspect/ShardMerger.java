@@ -0,0 +1,207 @@
+package edu.oregonstate.jdminer.inspect;
+
+import org.oregonstate.droidperm.jaxb.JaxbUtil;
+import org.oregonstate.droidperm.perm.miner.jaxb_out.*;
+import org.oregonstate.droidperm.util.SortUtil;
+
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Merges partial results saved by shard workers into the final output. Runs as a standalone process, with the same
+ * jpm.shards and jpm.shard.dir system properties as the workers.
+ * <p>
+ * Sorted partials are combined by a k-way merge. Each partial is still loaded whole, so the merge step needs enough
+ * heap to hold every def of every shard at once. Defs are plain JAXB objects, much smaller than the PSI a worker needs
+ * to mine them. Defs propagated in several shards are combined the way a single process would have built them.
+ * Final outputs are then saved by {@link MinedPermDefs#saveOutputs()}, same as in a single-process run.
+ */
+public class ShardMerger {
+
+    public static void main(String[] args) throws Exception {
+        ShardConfig shardConfig = ShardConfig.fromSystemProperties();
+        if (!shardConfig.isSharded() || shardConfig.isWorker()) {
+            throw new IllegalArgumentException("jpm.shards and jpm.shard.dir have to be set, jpm.shard.index not");
+        }
+        merge(shardConfig).saveOutputs();
+    }
+
+    public static MinedPermDefs merge(ShardConfig shardConfig) throws JAXBException, IOException {
+        List<File> shardDirs = shardConfig.getShardDirs();
+
+        List<PermissionDef> collected = mergeSorted(loadPartials(shardDirs, MinedPermDefs.JAVADOC_PARTIAL));
+        List<PermissionDef> propagated =
+                combinePropagated(mergeSorted(loadPartials(shardDirs, MinedPermDefs.PROPAGATED_PARTIAL)));
+
+        SortedMap<Integer, List<PermissionDef>> custom = loadCustomPartials(shardConfig, JPMData.classCustomPerm,
+                MinedPermDefs.CUSTOM_PARTIAL_PREFIX, PermissionDefList::getPermissionDefs);
+        SortedMap<Integer, List<PermissionDef>> manual = loadCustomPartials(shardConfig, JPMData.manualPerm,
+                MinedPermDefs.MANUAL_PARTIAL_PREFIX, PermissionDefList::getPermissionDefs);
+        SortedMap<Integer, List<ParametricSensDef>> parametric = loadCustomPartials(shardConfig,
+                JPMData.parametricPerm, MinedPermDefs.PARAMETRIC_PARTIAL_PREFIX,
+                PermissionDefList::getParametricSensDefs);
+
+        UriPermIndex uriPermIndex = new UriPermIndex();
+        for (File dir : shardDirs) {
+            File partial = checkExists(new File(dir, MinedPermDefs.URI_PERM_INDEX_PARTIAL));
+            uriPermIndex.putAll(JaxbUtil.load(UriPermIndex.class, partial));
+        }
+        return new MinedPermDefs(collected, propagated, custom, manual, parametric, uriPermIndex,
+                loadCommentSnippets(shardDirs));
+    }
+
+    /**
+     * @return merged snippet tables, or null if workers inlined comments and saved no snippet tables.
+     */
+    private static CommentSnippetTable loadCommentSnippets(List<File> shardDirs) throws JAXBException, IOException {
+        List<File> partials = shardDirs.stream().map(dir -> new File(dir, MinedPermDefs.COMMENT_SNIPPETS_PARTIAL))
+                .collect(Collectors.toList());
+        if (partials.stream().noneMatch(File::isFile)) {
+            return null;
+        }
+        CommentSnippetTable commentSnippets = new CommentSnippetTable();
+        for (File partial : partials) {
+            //all workers have to run with the same jpm.inlineComments
+            commentSnippets.putAll(JaxbUtil.load(CommentSnippetTable.class, checkExists(partial)));
+        }
+        return commentSnippets;
+    }
+
+    private static List<List<PermissionDef>> loadPartials(List<File> shardDirs, String partialName)
+            throws JAXBException, IOException {
+        List<List<PermissionDef>> result = new ArrayList<>();
+        for (File dir : shardDirs) {
+            List<PermissionDef> defs =
+                    JaxbUtil.load(PermissionDefList.class, checkExists(new File(dir, partialName))).getPermissionDefs();
+            result.add(defs != null ? defs : Collections.emptyList());
+        }
+        return result;
+    }
+
+    /**
+     * Merge partials sorted by {@link SortUtil#permissionDefComparator}. Equal defs from different partials are ordered
+     * by partial index.
+     */
+    static List<PermissionDef> mergeSorted(List<List<PermissionDef>> sortedPartials) {
+        PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(sortedPartials.size(), 1),
+                Comparator.comparing((Head head) -> head.def, SortUtil.permissionDefComparator)
+                        .thenComparingInt(head -> head.partialIndex));
+        for (int i = 0; i < sortedPartials.size(); i++) {
+            Head head = new Head(i, sortedPartials.get(i).iterator());
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        List<PermissionDef> result = new ArrayList<>();
+        while (!heads.isEmpty()) {
+            Head head = heads.poll();
+            result.add(head.def);
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Current def of a partial during the merge.
+     */
+    private static class Head {
+
+        private final int partialIndex;
+        private final Iterator<PermissionDef> remaining;
+        private PermissionDef def;
+
+        private Head(int partialIndex, Iterator<PermissionDef> remaining) {
+            this.partialIndex = partialIndex;
+            this.remaining = remaining;
+        }
+
+        /**
+         * @return false if the partial is exhausted.
+         */
+        private boolean advance() {
+            def = remaining.hasNext() ? remaining.next() : null;
+            return def != null;
+        }
+    }
+
+    /**
+     * A member reached from seeds in several shards is propagated by each of them. Combine these defs into one, with
+     * the union of their permissions and origins.
+     */
+    static List<PermissionDef> combinePropagated(List<PermissionDef> sortedDefs) {
+        List<PermissionDef> result = new ArrayList<>();
+        //defs comparing equal to the current one, grouped by equals()
+        List<List<PermissionDef>> run = new ArrayList<>();
+        for (PermissionDef def : sortedDefs) {
+            if (!run.isEmpty() && SortUtil.permissionDefComparator.compare(run.get(0).get(0), def) != 0) {
+                run.stream().map(ShardMerger::combineEqualDefs).forEach(result::add);
+                run.clear();
+            }
+            Optional<List<PermissionDef>> equalDefs =
+                    run.stream().filter(group -> group.get(0).equals(def)).findFirst();
+            if (equalDefs.isPresent()) {
+                equalDefs.get().add(def);
+            } else {
+                run.add(new ArrayList<>(Collections.singletonList(def)));
+            }
+        }
+        run.stream().map(ShardMerger::combineEqualDefs).forEach(result::add);
+        return result;
+    }
+
+    private static PermissionDef combineEqualDefs(List<PermissionDef> equalDefs) {
+        if (equalDefs.size() == 1) {
+            return equalDefs.get(0);
+        }
+        PermissionDef first = equalDefs.get(0);
+        List<Permission> permissions = equalDefs.stream().flatMap(def -> def.getPermissions().stream())
+                .map(Permission::getName).distinct().sorted().map(perm -> new Permission(perm, null))
+                .collect(Collectors.toList());
+        List<String> origins = equalDefs.stream()
+                .flatMap(def -> JPMUtil.parsePropagatedComment(def.getComment()).stream())
+                .collect(Collectors.toList());
+
+        PermissionDef permDef =
+                new PermissionDef(first.getClassName(), first.getTarget(), first.getTargetKind(), permissions);
+        permDef.setPermissionRel(PermissionRel.AllOf);
+        permDef.setComment(JPMUtil.buildPropagatedComment(origins));
+        permDef.setConditional(true);
+        return permDef;
+    }
+
+    /**
+     * Each raw custom def is mined by the shard owning its class, into a partial of its own.
+     */
+    private static <T> SortedMap<Integer, List<T>> loadCustomPartials(ShardConfig shardConfig,
+                                                                      List<JPMData.CustomPermDef> customPermRawData,
+                                                                      String partialPrefix,
+                                                                      Function<PermissionDefList, List<T>> getter)
+            throws JAXBException, IOException {
+        SortedMap<Integer, List<T>> result = new TreeMap<>();
+        for (int i = 0; i < customPermRawData.size(); i++) {
+            JPMData.CustomPermDef customPermDef = customPermRawData.get(i);
+            if (customPermDef.permList == null) {
+                continue;
+            }
+            File shardDir = shardConfig.getShardDir(shardConfig.shardOf(customPermDef.className));
+            File partial = checkExists(new File(shardDir, MinedPermDefs.partialName(partialPrefix, i)));
+            List<T> defs = getter.apply(JaxbUtil.load(PermissionDefList.class, partial));
+            result.put(i, defs != null ? new ArrayList<>(defs) : new ArrayList<>());
+        }
+        return result;
+    }
+
+    private static File checkExists(File partial) throws FileNotFoundException {
+        if (!partial.isFile()) {
+            throw new FileNotFoundException("Missing partial result, shard did not complete: " + partial);
+        }
+        return partial;
+    }
+}
@@ -0,0 +1,117 @@
+package edu.oregonstate.jdminer.inspect;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Resolves initializers of android.net.Uri fields to concrete URI strings.
+ * <p>
+ * Supported initializers are those used by Android providers: Uri.parse() of a string constant, Uri.withAppendedPath(),
+ * buildUpon()...appendPath()...build() chains, and references to other Uri fields. Anything else is unresolved.
+ */
+public class UriFieldResolver {
+
+    private static final String URI_CLASS = "android.net.Uri";
+    private static final String URI_BUILDER_CLASS = "android.net.Uri.Builder";
+
+    private final PsiConstantEvaluationHelper constantHelper;
+
+    /**
+     * Resolved fields. A field is mapped to empty while it's being resolved, to break reference cycles.
+     */
+    private final Map<PsiField, Optional<String>> cache = new HashMap<>();
+
+    public UriFieldResolver(Project project) {
+        constantHelper = JavaPsiFacade.getInstance(project).getConstantEvaluationHelper();
+    }
+
+    /**
+     * @return the URI string, or null if initializer could not be resolved.
+     */
+    public String resolve(PsiField field) {
+        Optional<String> cached = cache.get(field);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+        cache.put(field, Optional.empty());
+
+        //Compiled library classes have no initializers, but sources attached to them do.
+        PsiElement navElem = field.getNavigationElement();
+        PsiField sourceField = navElem instanceof PsiField ? (PsiField) navElem : field;
+        String result = sourceField.getInitializer() != null ? resolve(sourceField.getInitializer()) : null;
+        cache.put(field, Optional.ofNullable(result));
+        return result;
+    }
+
+    private String resolve(PsiExpression expr) {
+        if (expr instanceof PsiParenthesizedExpression) {
+            PsiExpression inner = ((PsiParenthesizedExpression) expr).getExpression();
+            return inner != null ? resolve(inner) : null;
+        }
+        if (expr instanceof PsiReferenceExpression) {
+            PsiElement target = ((PsiReferenceExpression) expr).resolve();
+            return target instanceof PsiField && isUriType(((PsiField) target).getType())
+                   ? resolve((PsiField) target) : null;
+        }
+        if (expr instanceof PsiMethodCallExpression) {
+            return resolveCall((PsiMethodCallExpression) expr);
+        }
+        return null;
+    }
+
+    private String resolveCall(PsiMethodCallExpression call) {
+        PsiMethod method = call.resolveMethod();
+        if (method == null || method.getContainingClass() == null) {
+            return null;
+        }
+        String className = method.getContainingClass().getQualifiedName();
+        String methName = method.getName();
+        PsiExpression[] args = call.getArgumentList().getExpressions();
+        PsiExpression qualifier = call.getMethodExpression().getQualifierExpression();
+
+        if (URI_CLASS.equals(className)) {
+            switch (methName) {
+                case "parse":
+                    return args.length == 1 ? evalString(args[0]) : null;
+                case "withAppendedPath":
+                    return args.length == 2 ? appendPath(resolve(args[0]), evalString(args[1])) : null;
+                case "buildUpon":
+                    return qualifier != null ? resolve(qualifier) : null;
+                default:
+                    return null;
+            }
+        }
+        if (URI_BUILDER_CLASS.equals(className) && qualifier != null) {
+            switch (methName) {
+                case "appendPath":
+                case "appendEncodedPath":
+                    return args.length == 1 ? appendPath(resolve(qualifier), evalString(args[0])) : null;
+                case "build":
+                    return resolve(qualifier);
+                default:
+                    return null;
+            }
+        }
+        return null;
+    }
+
+    private String evalString(PsiExpression expr) {
+        Object value = constantHelper.computeConstantExpression(expr);
+        return value instanceof String ? (String) value : null;
+    }
+
+    private static String appendPath(String base, String segment) {
+        if (base == null || segment == null) {
+            return null;
+        }
+        return base.endsWith("/") || segment.startsWith("/") ? base + segment : base + "/" + segment;
+    }
+
+    public static boolean isUriType(PsiType type) {
+        return type.getCanonicalText().equals(URI_CLASS);
+    }
+}
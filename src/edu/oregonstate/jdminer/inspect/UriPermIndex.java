@@ -0,0 +1,183 @@
+package edu.oregonstate.jdminer.inspect;
+
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.*;
+import java.util.*;
+
+/**
+ * Prefix trie from content URIs to the permissions guarding them. Each node corresponds to one URI segment. The root
+ * children are "scheme://authority" segments, and deeper nodes are path segments.
+ * <p>
+ * Lookup returns the permissions of the longest URI prefix that has permissions, thus URIs for individual rows like
+ * content://com.android.contacts/contacts/12 resolve to the permissions of content://com.android.contacts/contacts.
+ * URIs of classes that are known not to require permissions are stored as ignored. Lookup of an ignored URI or of
+ * anything below it returns no permissions, even if a shorter prefix has some.
+ */
+@XmlRootElement(name = "UriPermIndex")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class UriPermIndex {
+
+    @XmlElement(name = "node")
+    private List<Node> roots = new ArrayList<>();
+
+    @XmlTransient
+    private Map<String, Node> rootMap = new HashMap<>();
+
+    public void put(String uri, Collection<String> perms) {
+        getOrCreate(uri).addPermissions(perms);
+    }
+
+    /**
+     * Mark uri and all URIs below it as not requiring permissions.
+     */
+    public void putIgnored(String uri) {
+        getOrCreate(uri).ignored = true;
+    }
+
+    private Node getOrCreate(String uri) {
+        List<String> segments = splitUri(uri);
+        if (segments.isEmpty()) {
+            throw new IllegalArgumentException("Invalid URI: " + uri);
+        }
+        Node node = getOrCreate(roots, rootMap, segments.get(0));
+        for (String segment : segments.subList(1, segments.size())) {
+            node = getOrCreate(node.children, node.childMap, segment);
+        }
+        return node;
+    }
+
+    /**
+     * Add all URIs from other index to this one.
+     */
+    public void putAll(UriPermIndex other) {
+        other.roots.forEach(root -> putAll(root, root.segment));
+    }
+
+    private void putAll(Node node, String uri) {
+        if (!node.permissionSet.isEmpty()) {
+            put(uri, node.permissionSet);
+        }
+        if (node.isIgnored()) {
+            putIgnored(uri);
+        }
+        node.children.forEach(child -> putAll(child, uri + "/" + child.segment));
+    }
+
+    /**
+     * @return permissions of the longest prefix of uri that has permissions, or an empty set if there's none or if uri
+     * is ignored.
+     */
+    public Set<String> lookup(String uri) {
+        Set<String> result = Collections.emptySet();
+        Map<String, Node> level = rootMap;
+        for (String segment : splitUri(uri)) {
+            Node node = level.get(segment);
+            if (node == null) {
+                break;
+            }
+            if (node.isIgnored()) {
+                return Collections.emptySet();
+            }
+            if (!node.permissionSet.isEmpty()) {
+                result = node.permissionSet;
+            }
+            level = node.childMap;
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Split into "scheme://authority" followed by path segments. Query and fragment are ignored.
+     */
+    static List<String> splitUri(String uri) {
+        int schemeEnd = uri.indexOf("://");
+        if (schemeEnd == -1) {
+            return Collections.emptyList();
+        }
+        int end = uri.length();
+        for (char delim : new char[]{'?', '#'}) {
+            int index = uri.indexOf(delim, schemeEnd);
+            if (index != -1 && index < end) {
+                end = index;
+            }
+        }
+        int authorityEnd = uri.indexOf('/', schemeEnd + 3);
+        if (authorityEnd == -1 || authorityEnd > end) {
+            authorityEnd = end;
+        }
+
+        List<String> result = new ArrayList<>();
+        result.add(uri.substring(0, authorityEnd));
+        for (String segment : uri.substring(authorityEnd, end).split("/")) {
+            if (!segment.isEmpty()) {
+                result.add(segment);
+            }
+        }
+        return result;
+    }
+
+    private static Node getOrCreate(List<Node> nodes, Map<String, Node> nodeMap, String segment) {
+        Node node = nodeMap.get(segment);
+        if (node == null) {
+            node = new Node(segment);
+            //keep serialized form deterministic
+            int pos = Collections.binarySearch(nodes, node, Comparator.comparing((Node n) -> n.segment));
+            nodes.add(-pos - 1, node);
+            nodeMap.put(segment, node);
+        }
+        return node;
+    }
+
+    @SuppressWarnings("unused")
+    private void afterUnmarshal(Unmarshaller unmarshaller, Object parent) {
+        roots.forEach(root -> rootMap.put(root.segment, root));
+    }
+
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static class Node {
+
+        @XmlAttribute
+        private String segment;
+
+        /**
+         * Null rather than false when not ignored, to keep the attribute out of the serialized form.
+         */
+        @XmlAttribute
+        private Boolean ignored;
+
+        @XmlElement(name = "permission")
+        private List<String> permissions = new ArrayList<>();
+
+        @XmlElement(name = "node")
+        private List<Node> children = new ArrayList<>();
+
+        @XmlTransient
+        private Set<String> permissionSet = new TreeSet<>();
+
+        @XmlTransient
+        private Map<String, Node> childMap = new HashMap<>();
+
+        @SuppressWarnings("unused")
+        private Node() {
+        }
+
+        private Node(String segment) {
+            this.segment = segment;
+        }
+
+        private boolean isIgnored() {
+            return ignored != null && ignored;
+        }
+
+        private void addPermissions(Collection<String> perms) {
+            permissionSet.addAll(perms);
+            permissions = new ArrayList<>(permissionSet);
+        }
+
+        @SuppressWarnings("unused")
+        private void afterUnmarshal(Unmarshaller unmarshaller, Object parent) {
+            permissionSet.addAll(permissions);
+            children.forEach(child -> childMap.put(child.segment, child));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package edu.oregonstate.jdminer.inspect;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.oregonstate.droidperm.jaxb.JaxbUtil;
+import org.oregonstate.droidperm.perm.miner.jaxb_out.PermTargetKind;
+import org.oregonstate.droidperm.perm.miner.jaxb_out.PermissionDef;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CommentSnippetTableTest {
+
+    private static final String CAMERA_DOC = "\n * Requires {@link android.Manifest.permission#CAMERA}.\n";
+    private static final String CONTACTS_DOC = "\n * Requires {@link android.Manifest.permission#READ_CONTACTS}.\n";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void addBuildsTextOncePerSourceKey() {
+        CommentSnippetTable table = new CommentSnippetTable();
+        AtomicInteger calls = new AtomicInteger();
+
+        String hash = table.add("Camera.java[10, 50]", () -> {
+            calls.incrementAndGet();
+            return CAMERA_DOC;
+        });
+        String again = table.add("Camera.java[10, 50]", () -> {
+            calls.incrementAndGet();
+            return CAMERA_DOC;
+        });
+
+        assertEquals(hash, again);
+        assertEquals(1, calls.get());
+        assertEquals(CAMERA_DOC, table.get(hash));
+    }
+
+    @Test
+    public void equalTextSharesHash() {
+        CommentSnippetTable table = new CommentSnippetTable();
+        String hash = table.add("Camera.java[10, 50]", () -> CAMERA_DOC);
+        String sameText = table.add("Camera2.java[30, 70]", () -> CAMERA_DOC);
+        String otherText = table.add("Contacts.java[10, 50]", () -> CONTACTS_DOC);
+
+        assertEquals(hash, sameText);
+        assertNotEquals(hash, otherText);
+        assertEquals(CONTACTS_DOC, table.get(otherText));
+    }
+
+    @Test
+    public void referenceRoundTrip() {
+        String reference = CommentSnippetTable.toReference("0123456789abcdef");
+        assertEquals("0123456789abcdef", CommentSnippetTable.getHash(reference));
+        assertNull(CommentSnippetTable.getHash(CAMERA_DOC));
+        assertNull(CommentSnippetTable.getHash(null));
+    }
+
+    @Test
+    public void retainReferencedDropsUnreferencedSnippets() {
+        CommentSnippetTable table = new CommentSnippetTable();
+        String cameraHash = table.add("Camera.java[10, 50]", () -> CAMERA_DOC);
+        String contactsHash = table.add("Contacts.java[10, 50]", () -> CONTACTS_DOC);
+
+        CommentSnippetTable retained = table.retainReferenced(Arrays.asList(
+                def("android.hardware.Camera", CommentSnippetTable.toReference(cameraHash)),
+                def("android.app.Activity", JPMUtil.buildPropagatedComment(
+                        Collections.singletonList("android.hardware.Camera"))),
+                def("android.media.MediaRecorder", null)));
+
+        assertEquals(CAMERA_DOC, retained.get(cameraHash));
+        assertNull(retained.get(contactsHash));
+        assertEquals(CONTACTS_DOC, table.get(contactsHash));
+    }
+
+    @Test
+    public void putAllMergesShards() {
+        CommentSnippetTable shard0 = new CommentSnippetTable();
+        String cameraHash = shard0.add("Camera.java[10, 50]", () -> CAMERA_DOC);
+        CommentSnippetTable shard1 = new CommentSnippetTable();
+        String sharedHash = shard1.add("Camera2.java[30, 70]", () -> CAMERA_DOC);
+        String contactsHash = shard1.add("Contacts.java[10, 50]", () -> CONTACTS_DOC);
+
+        CommentSnippetTable merged = new CommentSnippetTable();
+        merged.putAll(shard0);
+        merged.putAll(shard1);
+
+        assertEquals(cameraHash, sharedHash);
+        assertEquals(CAMERA_DOC, merged.get(cameraHash));
+        assertEquals(CONTACTS_DOC, merged.get(contactsHash));
+    }
+
+    @Test
+    public void jaxbRoundTrip() throws Exception {
+        CommentSnippetTable table = new CommentSnippetTable();
+        String cameraHash = table.add("Camera.java[10, 50]", () -> CAMERA_DOC);
+        String contactsHash = table.add("Contacts.java[10, 50]", () -> CONTACTS_DOC);
+
+        //beforeMarshal fills the serialized list, afterUnmarshal rebuilds the map from it
+        File file = new File(tempFolder.getRoot(), "comment-snippets.xml");
+        JaxbUtil.save(table, CommentSnippetTable.class, file);
+        CommentSnippetTable loaded = JaxbUtil.load(CommentSnippetTable.class, file);
+
+        assertEquals(CAMERA_DOC, loaded.get(cameraHash));
+        assertEquals(CONTACTS_DOC, loaded.get(contactsHash));
+        assertEquals(cameraHash, loaded.add("Camera2.java[30, 70]", () -> CAMERA_DOC));
+    }
+
+    private static PermissionDef def(String className, String comment) {
+        PermissionDef permDef = new PermissionDef(className, null, PermTargetKind.Class, Collections.emptyList());
+        permDef.setComment(comment);
+        return permDef;
+    }
+}
@@ -0,0 +1,109 @@
+package edu.oregonstate.jdminer.inspect;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ShardConfigTest {
+
+    private static final ShardConfig WORKER_1 = new ShardConfig(Arrays.asList(
+            Collections.singletonList("android"),
+            Arrays.asList("android.support", "android.provider"),
+            Collections.singletonList("android.support.v7")), 1, new File("partials"));
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("jpm.shards");
+        System.clearProperty("jpm.shard.index");
+        System.clearProperty("jpm.shard.dir");
+    }
+
+    @Test
+    public void shardOfLongestPrefix() {
+        assertEquals(0, WORKER_1.shardOf("android.app.Activity"));
+        assertEquals(1, WORKER_1.shardOf("android.support.v4.app.ActivityCompat"));
+        assertEquals(1, WORKER_1.shardOf("android.provider.ContactsContract"));
+        assertEquals(2, WORKER_1.shardOf("android.support.v7.app.AppCompatActivity"));
+    }
+
+    @Test
+    public void shardOfMatchesWholeNames() {
+        ShardConfig config = new ShardConfig(Arrays.asList(
+                Collections.singletonList("java"),
+                Collections.singletonList("android"),
+                Collections.singletonList("androidx.core")), 1, new File("partials"));
+        assertEquals(1, config.shardOf("android.app.Activity"));
+        assertEquals(0, config.shardOf("androidx.fragment.app.Fragment"));
+        assertEquals(2, config.shardOf("androidx.core.app.ActivityCompat"));
+        assertEquals(0, config.shardOf("androidx.coreext.Foo"));
+        assertEquals(2, config.shardOf("androidx.core"));
+    }
+
+    @Test
+    public void shardOfUnmatchedIsFirstShard() {
+        assertEquals(0, WORKER_1.shardOf("java.lang.Object"));
+    }
+
+    @Test
+    public void workerOwnsOnlyItsShard() {
+        assertTrue(WORKER_1.isWorker());
+        assertTrue(WORKER_1.owns("android.provider.Telephony"));
+        assertFalse(WORKER_1.owns("android.app.Activity"));
+        assertFalse(WORKER_1.owns("android.support.v7.widget.Toolbar"));
+    }
+
+    @Test
+    public void singleProcessOwnsEverything() {
+        ShardConfig config = ShardConfig.fromSystemProperties();
+        assertFalse(config.isSharded());
+        assertFalse(config.isWorker());
+        assertTrue(config.owns("android.app.Activity"));
+        assertTrue(config.owns("java.lang.Object"));
+    }
+
+    @Test
+    public void mergeConfigIsShardedButNotWorker() {
+        System.setProperty("jpm.shards", "android;android.support");
+        System.setProperty("jpm.shard.dir", "partials");
+        ShardConfig config = ShardConfig.fromSystemProperties();
+        assertTrue(config.isSharded());
+        assertFalse(config.isWorker());
+        assertEquals(2, config.getShardCount());
+        assertEquals(new File("partials", "shard-1"), config.getShardDir(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeShardIndexRejected() {
+        System.setProperty("jpm.shards", "android;android.support");
+        System.setProperty("jpm.shard.dir", "partials");
+        System.setProperty("jpm.shard.index", "-2");
+        ShardConfig.fromSystemProperties();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void minusOneShardIndexRejected() {
+        System.setProperty("jpm.shards", "android;android.support");
+        System.setProperty("jpm.shard.dir", "partials");
+        System.setProperty("jpm.shard.index", "-1");
+        ShardConfig.fromSystemProperties();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shardIndexOutOfRangeRejected() {
+        System.setProperty("jpm.shards", "android;android.support");
+        System.setProperty("jpm.shard.dir", "partials");
+        System.setProperty("jpm.shard.index", "2");
+        ShardConfig.fromSystemProperties();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shardDirRequired() {
+        System.setProperty("jpm.shards", "android;android.support");
+        ShardConfig.fromSystemProperties();
+    }
+}
@@ -0,0 +1,180 @@
+package edu.oregonstate.jdminer.inspect;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.oregonstate.droidperm.perm.miner.jaxb_out.*;
+import org.oregonstate.droidperm.util.SortUtil;
+
+import java.io.File;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that merging shard partials gives the lists a single-process run would have built.
+ */
+public class ShardMergerTest {
+
+    private static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String WRITE_CONTACTS = "android.permission.WRITE_CONTACTS";
+    private static final String CAMERA = "android.permission.CAMERA";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void mergeSortedMatchesSingleProcessOrder() {
+        List<PermissionDef> shard0 = sorted(
+                def("android.app.Activity", "void requestPermissions(java.lang.String[], int)", null, CAMERA),
+                def("android.hardware.Camera", "android.hardware.Camera open()", null, CAMERA));
+        List<PermissionDef> shard1 = sorted(
+                def("android.provider.ContactsContract$Contacts", "android.net.Uri lookupContact()", null,
+                        READ_CONTACTS),
+                def("android.support.v4.app.ActivityCompat", "void requestPermissions()", null, CAMERA));
+
+        List<PermissionDef> singleProcess = new ArrayList<>(shard0);
+        singleProcess.addAll(shard1);
+        singleProcess.sort(SortUtil.permissionDefComparator);
+
+        assertEquals(describe(singleProcess), describe(ShardMerger.mergeSorted(Arrays.asList(shard1, shard0))));
+        assertEquals(describe(singleProcess), describe(ShardMerger.mergeSorted(Arrays.asList(shard0, shard1))));
+    }
+
+    @Test
+    public void mergeSortedOrdersEqualDefsByPartial() {
+        String target = "void requestPermissions(java.lang.String[], int)";
+        PermissionDef fromShard0 = def("android.support.v4.app.FragmentActivity", target, "0", READ_CONTACTS);
+        PermissionDef fromShard1 = def("android.support.v4.app.FragmentActivity", target, "1", WRITE_CONTACTS);
+        PermissionDef last = def("android.support.v7.app.AppCompatActivity", target, "2", CAMERA);
+
+        List<PermissionDef> merged = ShardMerger.mergeSorted(Arrays.asList(
+                sorted(fromShard0, last), sorted(fromShard1), Collections.emptyList()));
+        assertEquals(describe(Arrays.asList(fromShard0, fromShard1, last)), describe(merged));
+    }
+
+    @Test
+    public void combinePropagatedUnionsPermissionsAndOrigins() {
+        String target = "void requestPermissions(java.lang.String[], int)";
+        String originA = "android.app.Activity: " + target;
+        String originB = "android.provider.ContactsContract: void foo()";
+        PermissionDef fromShard0 = def("android.support.v4.app.FragmentActivity", target,
+                JPMUtil.buildPropagatedComment(Collections.singletonList(originA)), READ_CONTACTS);
+        PermissionDef fromShard1 = def("android.support.v4.app.FragmentActivity", target,
+                JPMUtil.buildPropagatedComment(Collections.singletonList(originB)), WRITE_CONTACTS, READ_CONTACTS);
+        PermissionDef other = def("android.support.v7.app.AppCompatActivity", target,
+                JPMUtil.buildPropagatedComment(Collections.singletonList(originA)), READ_CONTACTS);
+
+        List<PermissionDef> merged = ShardMerger.combinePropagated(
+                ShardMerger.mergeSorted(Arrays.asList(sorted(fromShard0, other), sorted(fromShard1))));
+
+        //what a single process builds when both origins reach the same member
+        PermissionDef singleProcess = def("android.support.v4.app.FragmentActivity", target,
+                JPMUtil.buildPropagatedComment(Arrays.asList(originA, originB)), READ_CONTACTS, WRITE_CONTACTS);
+        assertEquals(describe(sorted(singleProcess, other)), describe(merged));
+    }
+
+    /**
+     * FragmentActivity.foo() is mined in shard 1 and also overrides Activity.foo() mined in shard 0. A single process
+     * doesn't propagate to it because it's a seed, shard 0 does propagate to it.
+     */
+    @Test
+    public void shardedRunMatchesSingleProcess() throws Exception {
+        String target = "void foo()";
+        String activity = "android.app.Activity";
+        String fragmentActivity = "android.support.v4.app.FragmentActivity";
+        String appCompatActivity = "android.support.v7.app.AppCompatActivity";
+        String fromActivity = JPMUtil.buildPropagatedComment(Collections.singletonList(activity + ": " + target));
+        String fromFragmentActivity =
+                JPMUtil.buildPropagatedComment(Collections.singletonList(fragmentActivity + ": " + target));
+
+        MinedPermDefs singleProcess = minedPermDefs(
+                sorted(def(activity, target, "A", READ_CONTACTS), def(fragmentActivity, target, "D", WRITE_CONTACTS)),
+                sorted(def(appCompatActivity, target, JPMUtil.buildPropagatedComment(Arrays.asList(
+                        activity + ": " + target, fragmentActivity + ": " + target)), READ_CONTACTS, WRITE_CONTACTS)),
+                null, -1);
+
+        List<List<String>> shardPrefixes = Arrays.asList(
+                Collections.singletonList("android"), Collections.singletonList("android.support"));
+        File partialDir = tempFolder.getRoot();
+        ShardConfig shard0 = new ShardConfig(shardPrefixes, 0, partialDir);
+        minedPermDefs(
+                sorted(def(activity, target, "A", READ_CONTACTS)),
+                sorted(def(fragmentActivity, target, fromActivity, READ_CONTACTS),
+                        def(appCompatActivity, target, fromActivity, READ_CONTACTS)),
+                shard0, 0).savePartials(shard0.getShardDir(0));
+        ShardConfig shard1 = new ShardConfig(shardPrefixes, 1, partialDir);
+        minedPermDefs(
+                sorted(def(fragmentActivity, target, "D", WRITE_CONTACTS)),
+                sorted(def(appCompatActivity, target, fromFragmentActivity, WRITE_CONTACTS)),
+                shard1, 1).savePartials(shard1.getShardDir(1));
+        MinedPermDefs merged = ShardMerger.merge(new ShardConfig(shardPrefixes, -1, partialDir));
+
+        List<PermissionDef> removedPermDefs = JPMData.getClassPermDefsCoveredByCustomDefs();
+        assertEquals(describe(singleProcess.buildNewPermDefs(removedPermDefs)),
+                describe(merged.buildNewPermDefs(removedPermDefs)));
+        assertEquals(describe(singleProcess.buildPropagatedPermDefs(removedPermDefs)),
+                describe(merged.buildPropagatedPermDefs(removedPermDefs)));
+        assertEquals(1, merged.buildPropagatedPermDefs(removedPermDefs).size());
+    }
+
+    @Test
+    public void propagatedCommentRoundTrip() {
+        List<String> origins = Arrays.asList("b.B: void m()", "a.A", "a.A: void <init>(int)");
+        String comment = JPMUtil.buildPropagatedComment(origins);
+        assertEquals(comment, JPMUtil.buildPropagatedComment(JPMUtil.parsePropagatedComment(comment)));
+        assertEquals(Arrays.asList("a.A", "a.A: void <init>(int)", "b.B: void m()"),
+                JPMUtil.parsePropagatedComment(comment));
+    }
+
+    private static PermissionDef def(String className, String target, String comment, String... perms) {
+        List<Permission> permissions = Arrays.stream(perms).sorted().map(perm -> new Permission(perm, null))
+                .collect(Collectors.toList());
+        PermissionDef permDef = new PermissionDef(className, target, PermTargetKind.Method, permissions);
+        permDef.setPermissionRel(PermissionRel.AllOf);
+        permDef.setComment(comment);
+        permDef.setConditional(true);
+        return permDef;
+    }
+
+    /**
+     * @param shardConfig null for a single-process run.
+     * @return defs mined by the given shard, with an empty list for every custom def the shard owns.
+     */
+    private static MinedPermDefs minedPermDefs(List<PermissionDef> collected, List<PermissionDef> propagated,
+                                               ShardConfig shardConfig, int shard) {
+        return new MinedPermDefs(collected, propagated, emptyCustomDefs(JPMData.classCustomPerm, shardConfig, shard),
+                emptyCustomDefs(JPMData.manualPerm, shardConfig, shard),
+                emptyCustomDefs(JPMData.parametricPerm, shardConfig, shard), new UriPermIndex(), null);
+    }
+
+    private static <T> SortedMap<Integer, List<T>> emptyCustomDefs(List<JPMData.CustomPermDef> customPermRawData,
+                                                                   ShardConfig shardConfig, int shard) {
+        SortedMap<Integer, List<T>> result = new TreeMap<>();
+        for (int i = 0; i < customPermRawData.size(); i++) {
+            JPMData.CustomPermDef customPermDef = customPermRawData.get(i);
+            if (customPermDef.permList != null
+                    && (shardConfig == null || shardConfig.shardOf(customPermDef.className) == shard)) {
+                result.put(i, new ArrayList<>());
+            }
+        }
+        return result;
+    }
+
+    private static List<PermissionDef> sorted(PermissionDef... defs) {
+        List<PermissionDef> result = new ArrayList<>(Arrays.asList(defs));
+        result.sort(SortUtil.permissionDefComparator);
+        return result;
+    }
+
+    /**
+     * Compare everything that ends up in the output, not just what PermissionDef.equals() compares.
+     */
+    private static List<String> describe(List<PermissionDef> defs) {
+        return defs.stream().map(def -> def.getClassName() + "|" + def.getTarget() + "|" + def.getTargetKind() + "|"
+                + def.getPermissions().stream().map(Permission::getName).collect(Collectors.toList()) + "|"
+                + def.getComment())
+                .collect(Collectors.toList());
+    }
+}
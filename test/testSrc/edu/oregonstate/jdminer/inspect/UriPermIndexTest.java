@@ -0,0 +1,132 @@
+package edu.oregonstate.jdminer.inspect;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.oregonstate.droidperm.jaxb.JaxbUtil;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class UriPermIndexTest {
+
+    private static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String WRITE_CONTACTS = "android.permission.WRITE_CONTACTS";
+    private static final String READ_CALENDAR = "android.permission.READ_CALENDAR";
+
+    private static final String CONTACTS = "content://com.android.contacts";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void splitUriStripsQueryAndFragment() {
+        assertEquals(Arrays.asList(CONTACTS, "contacts", "12"),
+                UriPermIndex.splitUri(CONTACTS + "/contacts/12?limit=1#top"));
+        assertEquals(Arrays.asList(CONTACTS, "contacts"), UriPermIndex.splitUri(CONTACTS + "/contacts#top"));
+        assertEquals(Arrays.asList(CONTACTS, "contacts"), UriPermIndex.splitUri(CONTACTS + "//contacts/"));
+    }
+
+    @Test
+    public void splitUriAuthorityWithoutPath() {
+        assertEquals(Collections.singletonList(CONTACTS), UriPermIndex.splitUri(CONTACTS));
+        assertEquals(Collections.singletonList(CONTACTS), UriPermIndex.splitUri(CONTACTS + "/"));
+        assertEquals(Collections.singletonList(CONTACTS), UriPermIndex.splitUri(CONTACTS + "?a=/b"));
+    }
+
+    @Test
+    public void splitUriWithoutScheme() {
+        assertEquals(Collections.emptyList(), UriPermIndex.splitUri("com.android.contacts/contacts"));
+        assertEquals(Collections.emptyList(), UriPermIndex.splitUri(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void putWithoutSchemeRejected() {
+        new UriPermIndex().put("contacts", Collections.singletonList(READ_CONTACTS));
+    }
+
+    @Test
+    public void lookupLongestPrefix() {
+        UriPermIndex index = new UriPermIndex();
+        index.put(CONTACTS, Collections.singletonList(READ_CONTACTS));
+        index.put(CONTACTS + "/raw_contacts", Arrays.asList(WRITE_CONTACTS, READ_CONTACTS));
+
+        assertEquals(set(READ_CONTACTS), index.lookup(CONTACTS));
+        assertEquals(set(READ_CONTACTS), index.lookup(CONTACTS + "/contacts/12"));
+        assertEquals(set(READ_CONTACTS, WRITE_CONTACTS), index.lookup(CONTACTS + "/raw_contacts"));
+        assertEquals(set(READ_CONTACTS, WRITE_CONTACTS), index.lookup(CONTACTS + "/raw_contacts/3/data?x=1"));
+    }
+
+    @Test
+    public void lookupUnknownUri() {
+        UriPermIndex index = new UriPermIndex();
+        index.put(CONTACTS + "/contacts", Collections.singletonList(READ_CONTACTS));
+
+        assertEquals(set(), index.lookup(CONTACTS));
+        assertEquals(set(), index.lookup(CONTACTS + "/groups"));
+        assertEquals(set(), index.lookup("content://com.android.calendar/events"));
+        assertEquals(set(), index.lookup("not a uri"));
+    }
+
+    @Test
+    public void lookupIgnoredSubtree() {
+        UriPermIndex index = new UriPermIndex();
+        index.put(CONTACTS, Collections.singletonList(READ_CONTACTS));
+        index.putIgnored(CONTACTS + "/directories");
+        index.put(CONTACTS + "/directories/1", Collections.singletonList(WRITE_CONTACTS));
+
+        assertEquals(set(), index.lookup(CONTACTS + "/directories"));
+        assertEquals(set(), index.lookup(CONTACTS + "/directories/1"));
+        assertEquals(set(READ_CONTACTS), index.lookup(CONTACTS + "/contacts"));
+    }
+
+    @Test
+    public void putAllMergesShards() {
+        UriPermIndex shard0 = new UriPermIndex();
+        shard0.put(CONTACTS, Collections.singletonList(READ_CONTACTS));
+        shard0.put("content://com.android.calendar", Collections.singletonList(READ_CALENDAR));
+        UriPermIndex shard1 = new UriPermIndex();
+        shard1.put(CONTACTS + "/raw_contacts", Collections.singletonList(WRITE_CONTACTS));
+        shard1.putIgnored(CONTACTS + "/directories");
+
+        UriPermIndex merged = new UriPermIndex();
+        merged.putAll(shard0);
+        merged.putAll(shard1);
+
+        assertEquals(set(READ_CONTACTS), merged.lookup(CONTACTS + "/contacts"));
+        assertEquals(set(WRITE_CONTACTS), merged.lookup(CONTACTS + "/raw_contacts/3"));
+        assertEquals(set(), merged.lookup(CONTACTS + "/directories/1"));
+        assertEquals(set(READ_CALENDAR), merged.lookup("content://com.android.calendar/events"));
+    }
+
+    @Test
+    public void jaxbRoundTrip() throws Exception {
+        UriPermIndex index = new UriPermIndex();
+        index.put(CONTACTS, Collections.singletonList(READ_CONTACTS));
+        index.put(CONTACTS + "/raw_contacts/data", Collections.singletonList(WRITE_CONTACTS));
+        index.putIgnored(CONTACTS + "/directories");
+
+        File file = new File(tempFolder.getRoot(), "uri-perm-index.xml");
+        JaxbUtil.save(index, UriPermIndex.class, file);
+        UriPermIndex loaded = JaxbUtil.load(UriPermIndex.class, file);
+
+        //lookup relies on maps rebuilt by afterUnmarshal
+        assertEquals(set(READ_CONTACTS), loaded.lookup(CONTACTS + "/raw_contacts"));
+        assertEquals(set(WRITE_CONTACTS), loaded.lookup(CONTACTS + "/raw_contacts/data/5"));
+        assertEquals(set(), loaded.lookup(CONTACTS + "/directories/1"));
+
+        UriPermIndex merged = new UriPermIndex();
+        merged.putAll(loaded);
+        assertEquals(set(WRITE_CONTACTS), merged.lookup(CONTACTS + "/raw_contacts/data"));
+        assertEquals(set(), merged.lookup(CONTACTS + "/directories"));
+    }
+
+    private static Set<String> set(String... perms) {
+        return new TreeSet<>(Arrays.asList(perms));
+    }
+}